@@ -5,6 +5,7 @@ import java.io.*;
  * 
  * cell: a cell of the sudoku
  * zone: the generalized idea of a line, column or square
+ * peer: a cell that shares at least one zone with another cell
  * value, number: a number from 1 to N that can go in a cell
  * promoting a cell: assigning a definite value to a cell
  * 
@@ -40,8 +41,10 @@ import java.io.*;
  *
  * A graph of cells and zones.
  *
- * Cells refer to the zones they belong to and zones refer to the cells they
- * contain.
+ * The shape of the graph (which cells belong to which zones) only depends on
+ * SIZE, so it is kept in a Topology object made of flat int arrays. It is
+ * built once per SIZE and shared by every sudoku of that size, including all
+ * the copies made while backtracking.
  *
  * Each cell keeps track of the possible values it can take.
  * Each zone keeps track of the values that have been previously been found in
@@ -49,12 +52,13 @@ import java.io.*;
  * 
  * I keep the cells and zones in arrays (allCells and allZones) and refer to
  * them using their index in the array. I do this instead of using references
- * to make it easier to clone the whole data structure.
+ * to make it easier to clone the whole data structure. The id of a cell is its
+ * position in the grid (x*N + y), and a cell that has been assigned a value is
+ * set to null, so walking allCells from start to end visits the empty cells in
+ * grid order.
  * 
- * Additionally, a set called emptyCells contains the ids of all the cells that
- * haven't been assigned a value yet. (The choice of data structure is a bit
- * weird in hindsight. I guess it was to have fast removals. An array of bools
- * or a bitfield would be easy to use instead of this.)
+ * Additionally, numberOfEmptyCells counts the cells that haven't been assigned
+ * a value yet.
  * 
  *
  * Note that throughout my code, I'll use arrays of size N+1 to contain values
@@ -71,43 +75,90 @@ class Sudoku
      * not yet been revealed are stored as 0. */
     int Grid[][];
 
+    /* Topology
+     * The immutable shape of a sudoku of a given SIZE. Every table is a flat int array
+     * with a fixed stride so that the solving loops read it sequentially instead of
+     * following references.
+     */
+    static class Topology {
+        // Each cell belongs to exactly one square, one column and one row
+        static final int ZONES_PER_CELL = 3;
+
+        // numberOfCells is N*N, numberOfZones is 3*N (N squares, N columns and N rows)
+        final int numberOfCells, numberOfZones;
+
+        // cellZones[id*ZONES_PER_CELL + k] is the k-th zone of the cell with this id
+        final int[] cellZones;
+
+        // zoneCells[zoneId*N + k] is the k-th cell of the zone, in increasing order of cell id
+        final int[] zoneCells;
+
+        private Topology(int size) {
+            int n = size*size;
+            numberOfCells = n*n;
+            numberOfZones = ZONES_PER_CELL*n;
+
+            // The zones are numbered the same way the solving structure always created them:
+            // square, column and row interleaved.
+            cellZones = new int[numberOfCells*ZONES_PER_CELL];
+            zoneCells = new int[numberOfZones*n];
+            int[] zoneFill = new int[numberOfZones];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    int id = i*n + j;
+                    cellZones[id*ZONES_PER_CELL] = 3*(i/size + (j/size)*size);
+                    cellZones[id*ZONES_PER_CELL + 1] = 3*i + 1;
+                    cellZones[id*ZONES_PER_CELL + 2] = 3*j + 2;
+
+                    for (int k = 0; k < ZONES_PER_CELL; k++) {
+                        int zoneId = cellZones[id*ZONES_PER_CELL + k];
+                        zoneCells[zoneId*n + zoneFill[zoneId]++] = id;
+                    }
+                }
+            }
+        }
+
+        // One topology per SIZE, built the first time that size is solved.
+        private static final Map<Integer, Topology> cache = new HashMap<Integer, Topology>();
+
+        static synchronized Topology forSize(int size) {
+            Topology topology = cache.get(size);
+            if (topology == null) {
+                topology = new Topology(size);
+                cache.put(size, topology);
+            }
+            return topology;
+        }
+    }
+
+    Topology topology;
+
     /* Cell
      * Represents an sudoku cell for which we don't know the solution yet.
+     * The zones of the cell are found in the topology using the cell id.
      */
     class Cell {
-        // zones contains the ids of the zones to which this cell belongs
-        ArrayList<Integer> zones;
-        
         // possibilities represent what values haven't been eliminated for the cell
         // numberOfPossibilities keeps track of the number of possibilites left
         boolean[] possibilities;
         int numberOfPossibilities;
         
-        // Even though my algorithm doesn't care about the position of the cell in the grid, it still needs the coordinates
-        // to be able to set the right square in the solution grid once the value in this cell is found
-        int originalX, originalY;
-        
+        // The id is the position of the cell in the grid, x*N + y
         int id;
         
         // This constructor is used to create the cell at the beginning
-        public Cell(int id, int origX, int origY) {
-            zones = new ArrayList<Integer>();
+        public Cell(int id) {
             possibilities = new boolean[N+1];
             for (int i = 1; i <= N; i++) {
                 possibilities[i]=true;
             }
             numberOfPossibilities = N;
-            originalX=origX;
-            originalY=origY;
             this.id = id;
         }
         // This constructor is used when copying the sudoku
         public Cell(Cell cell){
-            zones = new ArrayList<Integer>(cell.zones);
             possibilities=cell.possibilities.clone();
             numberOfPossibilities = cell.numberOfPossibilities;
-            originalX = cell.originalX;
-            originalY = cell.originalY;
             id = cell.id;
         }
         
@@ -122,14 +173,9 @@ class Sudoku
     
     /* Zone
      * A zone is a generaliztion of a sudoku square, row, or column.
-     * Contrarily to cells, zones are not removed from the structure when they are all used, since I found it makes the
-     * program slower, not faster. 
+     * The cells of a zone are found in the topology. The ones that were already promoted are null in allCells.
      */
     class Zone {
-        // emptyCells contains the ids of the unpromoted cells inside the zone
-        // I use a set to rapidly remove elements from it.
-        Set<Integer> emptyCells;
-        
         // foundNumbers represents the number that were already found in cells
         // of the zone.  Once the cells were promoted, the values they were
         // promoted to are marked here, so they can be later eliminated from
@@ -145,94 +191,78 @@ class Sudoku
                 foundNumbers[i]=false;
             }
             this.id = id;
-            emptyCells = new LinkedHashSet<Integer>();
-                    
         }
         
         // This constructor is used when the sudoku is copied.
         public Zone(Zone zone) {
             foundNumbers = zone.foundNumbers.clone();
             id = zone.id;
-            emptyCells = new LinkedHashSet<Integer>(zone.emptyCells);
-        }
-        
-        // Used to facilitate adding a cell to the zone at the beginning.
-        public void addCell(Cell cell){
-            emptyCells.add(cell.id);
-            cell.zones.add(this.id);
         }
     }
     
     
-    // These will contain all the zones and cells. The positions of the cells and zones in these lists
-    // will be their ids.
-    ArrayList<Cell> allCells;
-    ArrayList<Zone> allZones;
+    // These will contain all the zones and cells. The positions of the cells and zones in these arrays
+    // will be their ids. Cells that are not empty are null.
+    Cell[] allCells;
+    Zone[] allZones;
     
-    
-    // When a new zone or cell is created at the beginning of the algorithm, we need to insert it inside the
-    // lists allCells and allZone, and mark them with the correct id. These two functions are used to simplify that.
-    
-    private Zone createZone(){
-        Zone ret = new Zone(allZones.size());
-        allZones.add(ret);
-        return ret;
-    }
-    private Cell createCell(int x, int y){
-        Cell ret = new Cell(allCells.size(),x,y);
-        allCells.add(ret);
-        return ret;
-    }
-    
-    // Contains the ids of cells for which we don't know the value yet. Used to iterate over them.
-    Set<Integer> emptyCells;
+    // The number of cells for which we don't know the value yet.
+    int numberOfEmptyCells;
+
+    // The number of partial solutions solve() took out of the heap, to measure how much backtracking was needed.
+    // solve() gives up once it goes over maxNodes, and then returns false and leaves the grid unsolved.
+    int nodes;
+    int maxNodes = Integer.MAX_VALUE;
     
     
     // This function is used at the beginning to create the structure that will be used while solving the sudoku
     public void initilizeSolvingStructure(){
         
-        // There can be at most N*N cells and 3*N zones (N rows, N columns, and N squares)
-        allCells = new ArrayList<Cell>(N*N);
-        allZones = new ArrayList<Zone>(3*N);
+        topology = Topology.forSize(SIZE);
         
-        // There are 3 different types of zones: squares, rows, and columns.
-        Zone[] squareZones = new Zone[N];
-        Zone[] columnZones = new Zone[N];
-        Zone[] rowZones = new Zone[N];
+        allCells = new Cell[topology.numberOfCells];
+        allZones = new Zone[topology.numberOfZones];
         
-        // There are N zones of each type.
-        for (int i = 0; i < N; i++) {
-            squareZones[i]=createZone();
-            columnZones[i]=createZone();
-            rowZones[i]=createZone();
+        for (int zoneId = 0; zoneId < topology.numberOfZones; zoneId++) {
+            allZones[zoneId] = new Zone(zoneId);
         }
  
-        // Iterate through through every cell in the grid and put it in the right zones.
+        numberOfEmptyCells = 0;
+
+        // Iterate through through every cell in the grid.
         for(int i=0; i<N; i++){
             for(int j=0; j<N; j++){
                 int value = Grid[i][j];
+                int id = i*N + j;
                 
-                // If the value isn't determined create a Cell and add it to the right zones
+                // If the value isn't determined create a Cell
                 if(value==0){
-                    Cell cell = createCell(i,j);
-                    squareZones[i/SIZE + (j/SIZE)*SIZE].addCell(cell);
-                    columnZones[i].addCell(cell);
-                    rowZones[j].addCell(cell);
+                    allCells[id] = new Cell(id);
+                    numberOfEmptyCells++;
                 }
                 // Else, write in the right zones that that value was already found.
                 else{
-                    squareZones[i/SIZE + (j/SIZE)*SIZE].foundNumbers[value]=true;
-                    columnZones[i].foundNumbers[value]=true;
-                    rowZones[j].foundNumbers[value]=true;
+                    for (int k = 0; k < Topology.ZONES_PER_CELL; k++) {
+                        allZones[topology.cellZones[id*Topology.ZONES_PER_CELL + k]].foundNumbers[value]=true;
+                    }
                 }
             }
         }
         
-        emptyCells = new LinkedHashSet<Integer>();
-        
-        // add the ids of all the cells into emptyCells
-        for (int i = 0, size = allCells.size(); i < size; i++) {
-            emptyCells.add(i);
+        // Exclude the given values from the empty cells. From now on promoteCell keeps the possibilities
+        // up to date by excluding the promoted value from the peers of the cell.
+        for (Cell cell : allCells) {
+            if (cell == null) {
+                continue;
+            }
+            for (int k = 0; k < Topology.ZONES_PER_CELL; k++) {
+                Zone zone = allZones[topology.cellZones[cell.id*Topology.ZONES_PER_CELL + k]];
+                for (int i=1; i<=N; i++){
+                    if (zone.foundNumbers[i]){
+                        cell.excludePossibility(i);
+                    }
+                }
+            }
         }
     }
     
@@ -266,21 +296,12 @@ class Sudoku
             
             
             // Using technique a)
+            // The elimination itself is already done by promoteCell, so what is left is to look at the counts.
             
             // for every empty cell
-            for (int cellId : emptyCells) {
-                Cell cell = allCells.get(cellId);
-                
-                // for every zone the cell belongs to
-                for (int zoneId : cell.zones){
-                    Zone zone = allZones.get(zoneId);
-                    
-                    // exclude all possibilities that were found in the zone
-                    for (int i=1; i<=N; i++){
-                        if (zone.foundNumbers[i]){
-                            cell.excludePossibility(i);
-                        }
-                    }
+            for (Cell cell : allCells) {
+                if (cell == null) {
+                    continue;
                 }
                 
                 // if a cell has no possibilities, there was an error
@@ -297,12 +318,12 @@ class Sudoku
                     }
 
                     // check if we already tried to promote that cell to some different value
-                    Integer objectInSet = cellsToBePromoted.get(cellId);
+                    Integer objectInSet = cellsToBePromoted.get(cell.id);
                     if(objectInSet!=null && objectInSet!=value){
                         return false;
                     }
                     else{
-                        cellsToBePromoted.put(cellId, value);
+                        cellsToBePromoted.put(cell.id, value);
                     }
                 }
             }
@@ -311,28 +332,31 @@ class Sudoku
             
             // Using technique b)
             
+            // possibilityCount will count the number of times a possibility appears in the zone
+            // lastCellWithPossibility tracks the last cell with such possibility, so that it can be promoted
+            int[] possibilityCount = new int[N+1];
+            int[] lastCellWithPossibility = new int[N+1];
+
             // for every zone
             for (Zone zone : allZones){
                 
-                // possibilityCount will count the number of times a possibility appears in the zone
-                // lastCellWithPossibility tracks the last cell with such possibility, so that it can be promoted
-                int[] possibilityCount = new int[N+1];
-                int[] lastCellWithPossibility = new int[N+1];
-                
                 // initialize possibilityCount
                 for (int i=1; i<=N; i++){
                     possibilityCount[i]=0;
                 }
                 
-                // for every cell in zone
-                for (int cellId : zone.emptyCells){
-                    Cell cell = allCells.get(cellId);
+                // for every empty cell in zone
+                for (int k = zone.id*N, end = k+N; k < end; k++){
+                    Cell cell = allCells[topology.zoneCells[k]];
+                    if (cell == null) {
+                        continue;
+                    }
                     
                     // go through all the possibilities of the cell and increment the counts
                     for (int i=1; i<=N; i++){
                         if(cell.possibilities[i]){
                             possibilityCount[i]++;
-                            lastCellWithPossibility[i]=cellId;
+                            lastCellWithPossibility[i]=cell.id;
                         }
                     }
                 }
@@ -385,29 +409,37 @@ class Sudoku
      */
     private boolean promoteCell(int cellId, int value){
         
-        Cell cell = allCells.get(cellId);
-        
         // for every zone to which the cell belongs
-        for (int zoneId : cell.zones){
-            Zone zone = allZones.get(zoneId);
+        for (int k = cellId*Topology.ZONES_PER_CELL, end = k+Topology.ZONES_PER_CELL; k < end; k++){
+            Zone zone = allZones[topology.cellZones[k]];
             
             // If this number was already found in the zone, there is an error
             if (zone.foundNumbers[value]==true){
                 return false;
             }
-            // Otherwise, remove the cell from the zone and mark that the value was found in the zone.
-            zone.emptyCells.remove(cellId);
+            // Otherwise, mark that the value was found in the zone.
             zone.foundNumbers[value]=true;
         }
         
         // Set the value in the grid
-        Grid[cell.originalX][cell.originalY]=value;
-        
-        // removes the cell from the set of empty cells
-        emptyCells.remove(cellId);
+        Grid[cellId/N][cellId%N]=value;
         
+        // removes the cell from the empty cells
         // I set this to null so that there are less cells to be copied.
-        allCells.set(cellId, null);
+        allCells[cellId] = null;
+        numberOfEmptyCells--;
+
+        // The value can no longer go in any of the peers of the cell. The peers are walked zone by zone,
+        // so the ones that share two zones with the cell are seen twice, which is harmless.
+        for (int k = cellId*Topology.ZONES_PER_CELL, end = k+Topology.ZONES_PER_CELL; k < end; k++){
+            int zoneId = topology.cellZones[k];
+            for (int m = zoneId*N, zoneEnd = m+N; m < zoneEnd; m++){
+                Cell peer = allCells[topology.zoneCells[m]];
+                if (peer != null){
+                    peer.excludePossibility(value);
+                }
+            }
+        }
         return true;
     }
 
@@ -425,30 +457,24 @@ class Sudoku
             }
         }
         
+        // the topology never changes, so it is shared
+        ret.topology = topology;
+
         // create arrays for the cells and zones
-        ret.allCells = new ArrayList<Sudoku.Cell>(N*N);
-        ret.allZones = new ArrayList<Sudoku.Zone>(3*N);
+        ret.allCells = new Cell[allCells.length];
+        ret.allZones = new Zone[allZones.length];
         
         // fill them with cells and zones
-        for (Cell cell : allCells){
-            if(cell!=null){
-                ret.allCells.add(ret.new Cell(cell));
-            }
-            else{
-                ret.allCells.add(null);
+        for (int i = 0; i < allCells.length; i++){
+            if(allCells[i]!=null){
+                ret.allCells[i] = ret.new Cell(allCells[i]);
             }
         }
-        for (Zone zone : allZones){
-            if(zone!=null){
-                ret.allZones.add(ret.new Zone(zone));
-            }
-            else{
-                ret.allZones.add(null);
-            }
+        for (int i = 0; i < allZones.length; i++){
+            ret.allZones[i] = ret.new Zone(allZones[i]);
         }
         
-        // copy the emptyCells array
-        ret.emptyCells = new LinkedHashSet<Integer>(emptyCells);
+        ret.numberOfEmptyCells = numberOfEmptyCells;
         
         return ret;
     }
@@ -457,20 +483,27 @@ class Sudoku
     /* The method that actually solves the sudoku.
      *
      * It is directly called from main and was used by the evaluators to test out code.
+     *
+     * It returns true if the grid was solved, and false if the sudoku has no solution or if it gave up
+     * after maxNodes nodes. The grid is left partly filled in when it returns false.
      */
-    public void solve(){
+    public boolean solve(){
         this.initilizeSolvingStructure();
+        this.nodes = 0;
         
-        this.solveLogically();
+        // solveLogically only finds an inconsistency when there is no solution
+        if (!this.solveLogically()){
+            return false;
+        }
         
-        if (this.emptyCells.size()==0){
-            return;
+        if (this.numberOfEmptyCells==0){
+            return true;
         }
         
         // Create a heap to keep the intermediate sudoku states and always work on the one with the least empty cells
         PriorityQueue<Sudoku> heap = new PriorityQueue<Sudoku>(1024, new Comparator<Sudoku>(){
             public int compare(Sudoku a, Sudoku b){
-                return a.emptyCells.size() - b.emptyCells.size();
+                return a.numberOfEmptyCells - b.numberOfEmptyCells;
             }
         });
         
@@ -478,14 +511,18 @@ class Sudoku
         
         while(!heap.isEmpty()){
             final Sudoku sudoku = heap.poll();
+            if (++this.nodes > maxNodes){
+                return false;
+            }
             
             // Choose the empty cell with the least open possibilities
-            int cellId = Collections.min(sudoku.emptyCells, new Comparator<Integer>() {
-                public int compare(Integer a, Integer b){
-                    return sudoku.allCells.get(a).numberOfPossibilities - sudoku.allCells.get(b).numberOfPossibilities;
+            Cell cell = null;
+            for (Cell candidate : sudoku.allCells) {
+                if (candidate != null && (cell == null || candidate.numberOfPossibilities < cell.numberOfPossibilities)) {
+                    cell = candidate;
                 }
-            });
-            Cell cell = sudoku.allCells.get(cellId);
+            }
+            int cellId = cell.id;
             
             // these two will be used to check if we're at the last possibility so that we can prevent a copy
             int lastPossibilityIndex = cell.numberOfPossibilities-1;
@@ -510,9 +547,9 @@ class Sudoku
                     if(newSudoku.promoteCell(cellId, i) && newSudoku.solveLogically()){
                         
                         // If there are no more empty cells, we're done.
-                        if(newSudoku.emptyCells.size()==0){
+                        if(newSudoku.numberOfEmptyCells==0){
                             this.Grid = newSudoku.Grid;
-                            return;
+                            return true;
                         }
                         // Else, put it on the heap
                         else{
@@ -524,9 +561,39 @@ class Sudoku
                 }
             }
         }
+        
+        // Every possibility was tried
+        return false;
     }
 
 
+    /* Checks that the grid is full and that no value appears twice in a row, a column or a square.
+     * This doesn't look at whether the grid contains the values of the original puzzle.
+     */
+    public boolean isSolved(){
+        for (int i=0; i<N; i++){
+            boolean[] inRow = new boolean[N+1];
+            boolean[] inColumn = new boolean[N+1];
+            boolean[] inSquare = new boolean[N+1];
+            for (int j=0; j<N; j++){
+                // the j-th cell of the i-th row, column and square
+                int row = Grid[i][j];
+                int column = Grid[j][i];
+                int square = Grid[(i/SIZE)*SIZE + j/SIZE][(i%SIZE)*SIZE + j%SIZE];
+                if (row<1 || row>N || column<1 || column>N || square<1 || square>N){
+                    return false;
+                }
+                if (inRow[row] || inColumn[column] || inSquare[square]){
+                    return false;
+                }
+                inRow[row] = inColumn[column] = inSquare[square] = true;
+            }
+        }
+        return true;
+    }
+
+
+
     /* 
      *  The following functions were provided by the provided starting code.
      *
@@ -0,0 +1,839 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.lang.management.*;
+
+/* A harness to see how solving time is distributed across many puzzles.
+ *
+ * It runs the solver over a labeled corpus made of puzzle files (text files like the ones in
+ * puzzles/, or binary files written by SudokuCodec) and of puzzles it generates itself, and
+ * records for each puzzle the time spent solving, the number of nodes (see Sudoku.nodes) and
+ * the number of bytes allocated.
+ *
+ * It then prints p50, p99 and max of these for each SIZE, as well as the slowest puzzles,
+ * since it is the rare pathological puzzle that matters, not the average one.
+ *
+ * The results can be saved as a baseline, and later runs can be compared against it. A puzzle
+ * is a regression if it now needs more nodes, or if it got slower by more than the tolerance
+ * (ignoring puzzles that take less than the noise floor). Files are labeled by their path
+ * relative to the current directory, so "puzzles" and "./puzzles" give the same labels.
+ *
+ * Finally, the slowest puzzles can be solved again while profiling, and the profile is written
+ * in the collapsed stack format used by async-profiler and flamegraph.pl ("frame;frame;frame count"
+ * on each line). If the path of async-profiler's asprof is given, it is attached to the harness
+ * and does the profiling. Otherwise, a thread samples the stack of the solving thread with
+ * Thread.getStackTrace. That only stops the solving thread at safepoints, so those stacks are
+ * coarse (whole methods only) and biased toward the frames that poll for safepoints, mostly the
+ * loops of solveLogically. They show where the time goes between methods, nothing finer. For a
+ * JFR recording, run the harness with -XX:StartFlightRecording instead.
+ *
+ * Generated puzzles are made from the solution of an empty grid, shuffled by relabeling the
+ * values and permuting rows, columns, bands and stacks, and then emptied in a random order until
+ * only a fraction of the cells remain, picked at random in a range for each puzzle. They are not
+ * guaranteed to have a unique solution. Most of them are easy, so several candidates are generated
+ * for each puzzle wanted and only the ones that need the most nodes are kept, and then made harder
+ * by hill climbing on the number of nodes (see harden). Candidates that need more than a maximum
+ * number of nodes are left out, since a single one of those can take minutes.
+ * (Puzzles with a unique solution were tried too, but the two techniques of solveLogically get
+ * through them with little backtracking, so they make poor hard sets for this solver.)
+ *
+ * Generating uses the solver being measured, so a change to the solver changes which puzzles are
+ * generated. Generated puzzles are therefore never compared against a baseline: they are saved
+ * with -savecorpus (puzzles/generated.bin holds the hard set), and that file is what gets run.
+ * Baselines also hold a hash of each grid, so a label whose puzzle changed is not compared either.
+ */
+class SudokuBenchmark
+{
+    /* Puzzle
+     * A grid from the corpus with the label used to refer to it in reports and baselines.
+     */
+    static class Puzzle {
+        final String label;
+        final int size;
+        final int[][] grid;
+
+        Puzzle(String label, int size, int[][] grid) {
+            this.label = label;
+            this.size = size;
+            this.grid = grid;
+        }
+
+        // The solver works in place, so every run gets a fresh copy of the grid.
+        Sudoku newSudoku() {
+            Sudoku sudoku = new Sudoku(size);
+            for (int i = 0; i < sudoku.N; i++) {
+                sudoku.Grid[i] = grid[i].clone();
+            }
+            return sudoku;
+        }
+    }
+
+    /* Result
+     * What was measured while solving a puzzle. allocatedBytes is -1 when the JVM can't measure it.
+     */
+    static class Result {
+        final Puzzle puzzle;
+        final long nanos;
+        final int nodes;
+        final long allocatedBytes;
+
+        Result(Puzzle puzzle, long nanos, int nodes, long allocatedBytes) {
+            this.puzzle = puzzle;
+            this.nanos = nanos;
+            this.nodes = nodes;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    // Sorts results from the one that needed the most nodes to the one that needed the least
+    static final Comparator<Result> MOST_NODES_FIRST = new Comparator<Result>() {
+        public int compare(Result a, Result b) {
+            return Integer.compare(b.nodes, a.nodes);
+        }
+    };
+
+    // Sorts results from the slowest to the fastest
+    static final Comparator<Result> SLOWEST_FIRST = new Comparator<Result>() {
+        public int compare(Result a, Result b) {
+            return Long.compare(b.nanos, a.nanos);
+        }
+    };
+
+
+    // Options, set from the command line in main
+    long seed = 1;
+    int warmupRounds = 1;
+    int runs = 3;
+    double tolerance = 0.5;
+    double noiseFloorMillis = 5;
+    int slowestCount = 10;
+    int candidatesPerPuzzle = 10;
+    int maxCandidateNodes = 0;
+    int hardenSteps = 20;
+    String baselineFile, saveFile, flameFile, asprofPath, corpusFile;
+
+    // For each SIZE to generate puzzles for: how many puzzles, and the range of the fraction of cells to keep
+    Map<Integer, Integer> generateCounts = new TreeMap<Integer, Integer>();
+    Map<Integer, double[]> clueRanges = new HashMap<Integer, double[]>();
+
+    List<Puzzle> corpus = new ArrayList<Puzzle>();
+
+
+    /* ---------------------------------------------------------------------------------------- */
+    /* Building the corpus                                                                      */
+    /* ---------------------------------------------------------------------------------------- */
+
+    // Adds a file, or all the files of a directory, to the corpus.
+    void addPath(File file) throws Exception {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            Arrays.sort(files);
+            for (File child : files) {
+                addPath(child);
+            }
+        }
+        else if (file.getName().endsWith(".bin")) {
+            addBinaryFile(file);
+        }
+        else {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                Sudoku sudoku = new Sudoku(Sudoku.readInteger(in));
+                sudoku.read(in);
+                corpus.add(new Puzzle(label(file), sudoku.SIZE, sudoku.Grid));
+            }
+        }
+    }
+
+    // The label of a file is its normalized path relative to the current directory, or its absolute
+    // path if it is outside of it, with '/' as separator so that baselines can be shared.
+    static String label(File file) {
+        Path current = Paths.get("").toAbsolutePath();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (path.startsWith(current)) {
+            path = current.relativize(path);
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    // Adds the puzzle of every record of a file written by SudokuCodec, labeled with its position in the file.
+    void addBinaryFile(File file) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int index = 0;
+        SudokuCodec.Record record;
+        while ((record = SudokuCodec.decode(buffer)) != null) {
+            // Records holding a solution also hold the puzzle it came from, which is what gets solved
+            corpus.add(new Puzzle(label(file) + "#" + index++, record.puzzle.SIZE, record.puzzle.Grid));
+        }
+        if (buffer.hasRemaining()) {
+            throw new EOFException("Truncated record at the end of " + file);
+        }
+    }
+
+    // The range of the fraction of cells kept in generated puzzles when none is given on the command
+    // line. The solver has to backtrack the most somewhere in these ranges.
+    static double[] defaultClueRange(int size) {
+        switch (size) {
+            case 1:
+            case 2:
+                return new double[] { 0.20, 0.40 };
+            case 3:
+                return new double[] { 0.20, 0.35 };
+            case 4:
+                return new double[] { 0.35, 0.50 };
+            default:
+                return new double[] { 0.45, 0.60 };
+        }
+    }
+
+    // The maximum nodes of a candidate when none is given on the command line. Nodes get more
+    // expensive as SIZE grows, so this keeps the time spent on each candidate to about a second.
+    static int defaultMaxCandidateNodes(int size) {
+        return size <= 3 ? 10000 : size == 4 ? 5000 : 2000;
+    }
+
+    // Whether there are puzzles to generate, in which case the run can't be used for baselines
+    boolean generates() {
+        for (int count : generateCounts.values()) {
+            if (count > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void generatePuzzles() {
+        for (Map.Entry<Integer, Integer> entry : generateCounts.entrySet()) {
+            int size = entry.getKey();
+            int count = entry.getValue();
+            if (count <= 0) {
+                continue;
+            }
+            int n = size*size;
+            double[] range = clueRanges.containsKey(size) ? clueRanges.get(size) : defaultClueRange(size);
+            int maxNodes = maxCandidateNodes > 0 ? maxCandidateNodes : defaultMaxCandidateNodes(size);
+
+            // Every puzzle of a size is made from the same solution, shuffled differently.
+            Sudoku solved = new Sudoku(size);
+            solved.solve();
+
+            // Solve every candidate and keep the ones that needed the most nodes. Nodes don't depend on
+            // timing, so the same candidates are kept on every run. The ones that go over the maximum
+            // are stopped and left out.
+            Random random = new Random(seed*31 + size);
+            List<Result> candidates = new ArrayList<Result>();
+            Map<Puzzle, int[][]> solutions = new HashMap<Puzzle, int[][]>();
+            for (int k = 0; k < count*candidatesPerPuzzle; k++) {
+                int[][] solution = shuffle(solved.Grid, size, random);
+                int[][] grid = new int[n][];
+                for (int i = 0; i < n; i++) {
+                    grid[i] = solution[i].clone();
+                }
+
+                // Empty all the cells except the first ones in a random order
+                double fraction = range[0] + (range[1] - range[0])*random.nextDouble();
+                int clues = (int) Math.round(fraction * n*n);
+                int[] order = permutation(n*n, random);
+                for (int c = clues; c < n*n; c++) {
+                    grid[order[c] / n][order[c] % n] = 0;
+                }
+
+                Puzzle puzzle = new Puzzle("generated-" + size + "x" + size + "-seed" + seed + "#" + k, size, grid);
+                int nodes = countNodes(puzzle, maxNodes);
+                if (nodes >= 0) {
+                    candidates.add(new Result(puzzle, 0, nodes, -1));
+                    solutions.put(puzzle, solution);
+                }
+            }
+
+            // The sort is stable, so ties keep the order in which the candidates were generated
+            Collections.sort(candidates, MOST_NODES_FIRST);
+            for (Result candidate : candidates.subList(0, Math.min(count, candidates.size()))) {
+                corpus.add(harden(candidate, solutions.get(candidate.puzzle), maxNodes, random));
+            }
+        }
+    }
+
+    // Solves the puzzle and returns the nodes it needed, or -1 if it needed more than maxNodes.
+    static int countNodes(Puzzle puzzle, int maxNodes) {
+        Sudoku sudoku = puzzle.newSudoku();
+        sudoku.maxNodes = maxNodes;
+        return sudoku.solve() ? sudoku.nodes : -1;
+    }
+
+    /* Makes a puzzle harder for the solver by hill climbing: each step moves one clue to an empty
+     * cell (taking its value from the solution), and keeps the move if the solver doesn't need fewer
+     * nodes. Moves that keep the same number of nodes are kept too, so that it can cross plateaus. */
+    Puzzle harden(Result candidate, int[][] solution, int maxNodes, Random random) {
+        Puzzle puzzle = candidate.puzzle;
+        int n = puzzle.size*puzzle.size;
+        int[][] grid = puzzle.grid;
+        int best = candidate.nodes;
+
+        for (int step = 0; step < hardenSteps; step++) {
+            int clue, empty;
+            do {
+                clue = random.nextInt(n*n);
+            } while (grid[clue / n][clue % n] == 0);
+            do {
+                empty = random.nextInt(n*n);
+            } while (grid[empty / n][empty % n] != 0);
+
+            grid[clue / n][clue % n] = 0;
+            grid[empty / n][empty % n] = solution[empty / n][empty % n];
+
+            int nodes = countNodes(puzzle, maxNodes);
+            if (nodes >= best) {
+                best = nodes;
+            }
+            else {
+                grid[empty / n][empty % n] = 0;
+                grid[clue / n][clue % n] = solution[clue / n][clue % n];
+            }
+        }
+        return puzzle;
+    }
+
+    // Writes the puzzles to a file, one SudokuCodec record each. When the file is read back, the puzzles
+    // are labeled by their position in it, so a baseline has to be saved from a run that reads it.
+    static void saveCorpus(List<Puzzle> puzzles, String name) throws IOException {
+        try (FileChannel out = new FileOutputStream(name).getChannel()) {
+            for (Puzzle puzzle : puzzles) {
+                ByteBuffer buffer = ByteBuffer.allocate(SudokuCodec.recordLength(puzzle.size, false, false));
+                SudokuCodec.encode(puzzle.newSudoku(), buffer);
+                SudokuCodec.flush(buffer, out);
+            }
+        }
+    }
+
+    // Returns a random valid grid equivalent to the given one.
+    static int[][] shuffle(int[][] solution, int size, Random random) {
+        int n = size*size;
+
+        // relabel[v] is the new value of v, rows[i] and columns[j] are where row i and column j come from.
+        int[] relabel = new int[n+1];
+        int[] valueOrder = permutation(n, random);
+        for (int v = 1; v <= n; v++) {
+            relabel[v] = valueOrder[v-1] + 1;
+        }
+        int[] rows = bandPermutation(size, random);
+        int[] columns = bandPermutation(size, random);
+        boolean transpose = random.nextBoolean();
+
+        int[][] grid = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int value = transpose ? solution[columns[j]][rows[i]] : solution[rows[i]][columns[j]];
+                grid[i][j] = relabel[value];
+            }
+        }
+        return grid;
+    }
+
+    // Permutes the bands, and the lines inside each band, which keeps every square a square.
+    static int[] bandPermutation(int size, Random random) {
+        int[] bands = permutation(size, random);
+        int[] lines = new int[size*size];
+        for (int b = 0; b < size; b++) {
+            int[] inside = permutation(size, random);
+            for (int k = 0; k < size; k++) {
+                lines[b*size + k] = bands[b]*size + inside[k];
+            }
+        }
+        return lines;
+    }
+
+    static int[] permutation(int length, Random random) {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = i;
+        }
+        for (int i = length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+        return values;
+    }
+
+
+    /* ---------------------------------------------------------------------------------------- */
+    /* Measuring                                                                                */
+    /* ---------------------------------------------------------------------------------------- */
+
+    // Allocated bytes are only available on JVMs that implement com.sun.management.ThreadMXBean.
+    static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    static Result measure(Puzzle puzzle) {
+        Sudoku sudoku = puzzle.newSudoku();
+
+        long oldAllocated = allocatedBytes();
+        long oldTime = System.nanoTime();
+
+        boolean solved = sudoku.solve();
+
+        long elapsed = System.nanoTime() - oldTime;
+        long allocated = oldAllocated < 0 ? -1 : allocatedBytes() - oldAllocated;
+
+        if (!solved) {
+            throw new IllegalStateException("The solver found no solution for " + puzzle.label);
+        }
+        if (!sudoku.isSolved() || !keepsGivens(sudoku, puzzle.grid)) {
+            throw new IllegalStateException("The solver returned an invalid grid for " + puzzle.label);
+        }
+        return new Result(puzzle, elapsed, sudoku.nodes, allocated);
+    }
+
+    // Checks that the grid still contains the values it started with
+    static boolean keepsGivens(Sudoku sudoku, int[][] givens) {
+        for (int i = 0; i < sudoku.N; i++) {
+            for (int j = 0; j < sudoku.N; j++) {
+                if (givens[i][j] != 0 && givens[i][j] != sudoku.Grid[i][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    List<Result> run() {
+        // Let the JIT compile the solver before anything is measured
+        for (int round = 0; round < warmupRounds; round++) {
+            for (Puzzle puzzle : corpus) {
+                measure(puzzle);
+            }
+        }
+
+        // Each puzzle is solved several times and the fastest run is kept, so that a GC pause or
+        // another process doesn't get reported as a regression.
+        List<Result> results = new ArrayList<Result>(corpus.size());
+        for (Puzzle puzzle : corpus) {
+            Result best = measure(puzzle);
+            for (int run = 1; run < runs; run++) {
+                Result result = measure(puzzle);
+                if (result.nanos < best.nanos) {
+                    best = result;
+                }
+            }
+            results.add(best);
+        }
+        return results;
+    }
+
+
+    /* ---------------------------------------------------------------------------------------- */
+    /* Reporting                                                                                */
+    /* ---------------------------------------------------------------------------------------- */
+
+    // Nearest-rank percentile of values that are already sorted
+    static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    void printReport(List<Result> results) {
+        // Group the results by SIZE
+        Map<Integer, List<Result>> bySize = new TreeMap<Integer, List<Result>>();
+        for (Result result : results) {
+            List<Result> group = bySize.get(result.puzzle.size);
+            if (group == null) {
+                group = new ArrayList<Result>();
+                bySize.put(result.puzzle.size, group);
+            }
+            group.add(result);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-6s %8s %12s %12s %12s %10s %10s %10s %14s %14s",
+                "size", "puzzles", "p50 ms", "p99 ms", "max ms", "p50 nodes", "p99 nodes", "max nodes", "p50 alloc", "max alloc"));
+        for (Map.Entry<Integer, List<Result>> entry : bySize.entrySet()) {
+            List<Result> group = entry.getValue();
+            long[] times = new long[group.size()];
+            long[] nodes = new long[group.size()];
+            long[] allocated = new long[group.size()];
+            for (int k = 0; k < group.size(); k++) {
+                times[k] = group.get(k).nanos;
+                nodes[k] = group.get(k).nodes;
+                allocated[k] = group.get(k).allocatedBytes;
+            }
+            Arrays.sort(times);
+            Arrays.sort(nodes);
+            Arrays.sort(allocated);
+
+            System.out.println(String.format(Locale.ROOT, "%-6s %8d %12s %12s %12s %10d %10d %10d %14d %14d",
+                    entry.getKey() + "x" + entry.getKey(), group.size(),
+                    millis(percentile(times, 50)), millis(percentile(times, 99)), millis(percentile(times, 100)),
+                    percentile(nodes, 50), percentile(nodes, 99), percentile(nodes, 100),
+                    percentile(allocated, 50), percentile(allocated, 100)));
+        }
+
+        System.out.println();
+        System.out.println("Slowest puzzles:");
+        for (Result result : slowest(results, slowestCount)) {
+            System.out.println(String.format(Locale.ROOT, "%12s ms %10d nodes %14d bytes  %s",
+                    millis(result.nanos), result.nodes, result.allocatedBytes, result.puzzle.label));
+        }
+    }
+
+    static List<Result> slowest(List<Result> results, int count) {
+        List<Result> sorted = new ArrayList<Result>(results);
+        Collections.sort(sorted, SLOWEST_FIRST);
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
+
+
+    /* ---------------------------------------------------------------------------------------- */
+    /* Baselines                                                                                */
+    /* ---------------------------------------------------------------------------------------- */
+
+    /* A baseline is a text file with one line per puzzle: the time in nanoseconds, the number of
+     * nodes, the hash of the grid (in hexadecimal) and the label, separated by tabs. The label comes
+     * last since file names may contain spaces. */
+    static void saveBaseline(List<Result> results, String name) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(name)))) {
+            for (Result result : results) {
+                out.println(result.nanos + "\t" + result.nodes + "\t" + Long.toHexString(gridHash(result.puzzle))
+                        + "\t" + result.puzzle.label);
+            }
+        }
+    }
+
+    // The hash of the grid of a puzzle, so that a label whose grid changed isn't compared with the old one
+    static long gridHash(Puzzle puzzle) {
+        return Arrays.deepHashCode(puzzle.grid) & 0xffffffffL;
+    }
+
+    // Returns the baseline as a map from label to {nanos, nodes, grid hash}
+    static Map<String, long[]> loadBaseline(String name) throws IOException {
+        Map<String, long[]> baseline = new HashMap<String, long[]>();
+        try (BufferedReader in = new BufferedReader(new FileReader(name))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    throw new IOException("Invalid line in baseline " + name + ": " + line);
+                }
+                baseline.put(fields[3], new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2], 16) });
+            }
+        }
+        return baseline;
+    }
+
+    /* Prints the regressions, as well as the puzzles that are only in the run or only in the baseline
+     * and the ones whose grid changed, and returns how many problems there were. Puzzles that can't be
+     * compared are problems too, otherwise a run that doesn't match its baseline at all would pass. */
+    int compareToBaseline(List<Result> results, Map<String, long[]> baseline) {
+        int regressions = 0;
+        int missing = 0;
+        int changed = 0;
+        int notRun = 0;
+        Set<String> labels = new HashSet<String>();
+
+        System.out.println();
+        System.out.println("Compared to baseline " + baselineFile + ":");
+        for (Result result : results) {
+            labels.add(result.puzzle.label);
+            long[] old = baseline.get(result.puzzle.label);
+            if (old == null) {
+                missing++;
+                System.out.println("NOT IN BASELINE " + result.puzzle.label);
+                continue;
+            }
+            if (old[2] != gridHash(result.puzzle)) {
+                changed++;
+                System.out.println("CHANGED " + result.puzzle.label);
+                continue;
+            }
+            long oldNanos = old[0];
+            long oldNodes = old[1];
+
+            boolean slower = result.nanos > oldNanos * (1 + tolerance) && result.nanos / 1e6 >= noiseFloorMillis;
+            boolean moreNodes = result.nodes > oldNodes;
+            if (slower || moreNodes) {
+                regressions++;
+                System.out.println(String.format(Locale.ROOT, "REGRESSION %s: %s ms -> %s ms, %d nodes -> %d nodes",
+                        result.puzzle.label, millis(oldNanos), millis(result.nanos), oldNodes, result.nodes));
+            }
+        }
+
+        List<String> notRunLabels = new ArrayList<String>(baseline.keySet());
+        Collections.sort(notRunLabels);
+        for (String label : notRunLabels) {
+            if (!labels.contains(label)) {
+                notRun++;
+                System.out.println("NOT RUN " + label);
+            }
+        }
+
+        System.out.println((results.size() - missing - changed) + " puzzles compared, " + regressions + " regressions, "
+                + missing + " puzzles not in the baseline, " + changed + " puzzles changed, "
+                + notRun + " baseline puzzles not run.");
+        return regressions + missing + changed + notRun;
+    }
+
+
+    /* ---------------------------------------------------------------------------------------- */
+    /* Flame data                                                                               */
+    /* ---------------------------------------------------------------------------------------- */
+
+    // How often the stack of the solving thread is sampled
+    static final long SAMPLE_INTERVAL_MILLIS = 1;
+
+    /* StackSampler
+     * Samples the stack of another thread until it is interrupted, counting each distinct stack.
+     * Only the frames from the outermost Sudoku call down are kept, so the frames of the harness
+     * (and samples taken while the harness wasn't solving) are left out.
+     */
+    static class StackSampler extends Thread {
+        final Thread target;
+        final Map<String, Integer> stacks = new HashMap<String, Integer>();
+
+        StackSampler(Thread target) {
+            this.target = target;
+            setDaemon(true);
+        }
+
+        // Frames of Sudoku or of one of its nested classes
+        static boolean isSolverFrame(StackTraceElement frame) {
+            String name = frame.getClassName();
+            return name.equals("Sudoku") || name.startsWith("Sudoku$");
+        }
+
+        public void run() {
+            while (!isInterrupted()) {
+                StackTraceElement[] frames = target.getStackTrace();
+
+                int outermost = frames.length - 1;
+                while (outermost >= 0 && !isSolverFrame(frames[outermost])) {
+                    outermost--;
+                }
+
+                // Collapsed stacks go from the root frame to the leaf frame
+                if (outermost >= 0) {
+                    StringBuilder stack = new StringBuilder();
+                    for (int k = outermost; k >= 0; k--) {
+                        if (k < outermost) {
+                            stack.append(';');
+                        }
+                        stack.append(frames[k].getClassName()).append('.').append(frames[k].getMethodName());
+                    }
+                    Integer count = stacks.get(stack.toString());
+                    stacks.put(stack.toString(), count == null ? 1 : count + 1);
+                }
+
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /* Solves each of the given puzzles again and again for at least 100 sampling intervals, so that
+     * even fast puzzles show up in the profile. */
+    static void solveRepeatedly(List<Result> slowest) {
+        for (Result result : slowest) {
+            long minimumNanos = 100 * SAMPLE_INTERVAL_MILLIS * 1000000;
+            long start = System.nanoTime();
+            do {
+                result.puzzle.newSudoku().solve();
+            } while (System.nanoTime() - start < minimumNanos);
+        }
+    }
+
+    // Profiles the given puzzles with the built-in StackSampler (see the comment at the top of the file).
+    static void sampleStacks(List<Result> slowest, String name) throws Exception {
+        StackSampler sampler = new StackSampler(Thread.currentThread());
+        sampler.start();
+
+        solveRepeatedly(slowest);
+
+        sampler.interrupt();
+        sampler.join();
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(name)))) {
+            for (Map.Entry<String, Integer> entry : sampler.stacks.entrySet()) {
+                out.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+
+    // Profiles the given puzzles by attaching async-profiler to this JVM with asprof.
+    static void profileWithAsyncProfiler(List<Result> slowest, String name, String asprof) throws Exception {
+        // The name of the runtime is "pid@host" on HotSpot
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+
+        // The profile is written by the profiled JVM, so it needs a path that doesn't depend on the current directory
+        String file = new File(name).getAbsolutePath();
+
+        runCommand(asprof, "start", "-e", "cpu", "-i", SAMPLE_INTERVAL_MILLIS + "ms", pid);
+        solveRepeatedly(slowest);
+        runCommand(asprof, "stop", "-o", "collapsed", "-f", file, pid);
+    }
+
+    static void runCommand(String... command) throws Exception {
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new IOException(Arrays.toString(command) + " exited with status " + status);
+        }
+    }
+
+
+    /* The main function builds the corpus, measures it and prints the report.
+     *
+     * java SudokuBenchmark [options] [files or directories...]
+     *
+     * Without files or directories, the puzzles directory is used. The options are:
+     *
+     * -generate SIZE COUNT  generate COUNT puzzles of the given SIZE (can be repeated). Generated
+     *                       puzzles depend on the solver, so they can't be used with -save or -baseline:
+     *                       save them with -savecorpus, and run that file instead.
+     * -candidates C         candidates generated for each puzzle kept (default 10)
+     * -maxnodes M           candidates that need more nodes than this are left out (default 10000
+     *                       for 3x3, 5000 for 4x4 and 2000 for larger sizes)
+     * -harden S             hill climbing steps to make each kept puzzle harder (default 20)
+     * -savecorpus FILE      save the generated puzzles with SudokuCodec, so that later runs can be
+     *                       given FILE instead of generating again
+     * -clues SIZE MIN MAX   range of the fraction of the cells kept in generated puzzles of that SIZE
+     *                       (default 0.2 to 0.35 for 3x3, 0.35 to 0.5 for 4x4, 0.45 to 0.6 for 5x5)
+     * -seed S               seed used to generate puzzles (default 1)
+     * -warmup ROUNDS        rounds over the whole corpus before measuring (default 1)
+     * -runs R               times each puzzle is solved, the fastest one is kept (default 3)
+     * -save FILE            save the results as a baseline
+     * -baseline FILE        compare against a baseline, and exit with 1 if there are regressions or
+     *                       if the run and the baseline don't have exactly the same puzzles
+     * -tolerance T          how much slower a puzzle can get before it is a regression (default 0.5, so 50%)
+     * -noise MS             puzzles solved faster than this are never time regressions (default 5)
+     * -slowest K            how many of the slowest puzzles to list and profile (default 10)
+     * -flame FILE           write collapsed stacks of the slowest puzzles to FILE
+     * -asprof PATH          use async-profiler's asprof at PATH for -flame instead of sampling stacks
+     */
+    public static void main( String args[] ) throws Exception
+    {
+        SudokuBenchmark benchmark = new SudokuBenchmark();
+        List<String> paths = new ArrayList<String>();
+
+        try {
+            for( int k = 0; k < args.length; k++ ) {
+                String arg = args[k];
+                if( arg.equals("-generate") ) {
+                    benchmark.generateCounts.put( Integer.parseInt( args[++k] ), Integer.parseInt( args[++k] ) );
+                }
+                else if( arg.equals("-clues") ) {
+                    benchmark.clueRanges.put( Integer.parseInt( args[++k] ),
+                            new double[] { Double.parseDouble( args[++k] ), Double.parseDouble( args[++k] ) } );
+                }
+                else if( arg.equals("-candidates") ) {
+                    benchmark.candidatesPerPuzzle = Math.max( 1, Integer.parseInt( args[++k] ) );
+                }
+                else if( arg.equals("-savecorpus") ) {
+                    benchmark.corpusFile = args[++k];
+                }
+                else if( arg.equals("-harden") ) {
+                    benchmark.hardenSteps = Integer.parseInt( args[++k] );
+                }
+                else if( arg.equals("-maxnodes") ) {
+                    benchmark.maxCandidateNodes = Integer.parseInt( args[++k] );
+                }
+                else if( arg.equals("-seed") ) {
+                    benchmark.seed = Long.parseLong( args[++k] );
+                }
+                else if( arg.equals("-warmup") ) {
+                    benchmark.warmupRounds = Integer.parseInt( args[++k] );
+                }
+                else if( arg.equals("-runs") ) {
+                    benchmark.runs = Math.max( 1, Integer.parseInt( args[++k] ) );
+                }
+                else if( arg.equals("-save") ) {
+                    benchmark.saveFile = args[++k];
+                }
+                else if( arg.equals("-baseline") ) {
+                    benchmark.baselineFile = args[++k];
+                }
+                else if( arg.equals("-tolerance") ) {
+                    benchmark.tolerance = Double.parseDouble( args[++k] );
+                }
+                else if( arg.equals("-noise") ) {
+                    benchmark.noiseFloorMillis = Double.parseDouble( args[++k] );
+                }
+                else if( arg.equals("-slowest") ) {
+                    benchmark.slowestCount = Integer.parseInt( args[++k] );
+                }
+                else if( arg.equals("-flame") ) {
+                    benchmark.flameFile = args[++k];
+                }
+                else if( arg.equals("-asprof") ) {
+                    benchmark.asprofPath = args[++k];
+                }
+                else if( arg.startsWith("-") ) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+                else {
+                    paths.add( arg );
+                }
+            }
+        } catch( RuntimeException e ) {
+            System.out.println("Error: " + e.getMessage() + ". See the comment of SudokuBenchmark.main for the options.");
+            System.exit(-1);
+        }
+        if( benchmark.generates() && (benchmark.saveFile != null || benchmark.baselineFile != null) ) {
+            System.out.println("Error: generated puzzles depend on the solver, so they can't be compared against a baseline. "
+                    + "Save them with -savecorpus and run that file instead.");
+            System.exit(-1);
+        }
+
+        if( paths.isEmpty() ) {
+            paths.add( "puzzles" );
+        }
+        for( String path : paths ) {
+            benchmark.addPath( new File( path ) );
+        }
+        int loaded = benchmark.corpus.size();
+        benchmark.generatePuzzles();
+        if( benchmark.corpusFile != null ) {
+            saveCorpus( benchmark.corpus.subList( loaded, benchmark.corpus.size() ), benchmark.corpusFile );
+        }
+
+        List<Result> results = benchmark.run();
+        benchmark.printReport( results );
+
+        if( benchmark.saveFile != null ) {
+            saveBaseline( results, benchmark.saveFile );
+        }
+        if( benchmark.flameFile != null ) {
+            List<Result> slowest = slowest( results, benchmark.slowestCount );
+            if( benchmark.asprofPath != null ) {
+                profileWithAsyncProfiler( slowest, benchmark.flameFile, benchmark.asprofPath );
+            }
+            else {
+                sampleStacks( slowest, benchmark.flameFile );
+            }
+        }
+        if( benchmark.baselineFile != null ) {
+            if( benchmark.compareToBaseline( results, loadBaseline( benchmark.baselineFile ) ) > 0 ) {
+                System.exit(1);
+            }
+        }
+    }
+}
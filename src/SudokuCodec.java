@@ -0,0 +1,410 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/* A compact binary format for sudoku puzzles and solutions.
+ *
+ * Each record is laid out as follows:
+ *
+ * 1 byte:  SIZE, from 1 to 100 like in Sudoku.main
+ * 1 byte:  flags (see FLAG_METADATA and FLAG_SOLUTION, all other bits must be 0)
+ * the N*N cells of the grid, row by row like read() and print(), each one stored on
+ *          bitsPerCell(N) bits, the most significant bit first. The last byte is padded
+ *          with zeros. Empty cells are stored as 0, like in the Grid.
+ * only if FLAG_SOLUTION is set: the grid is a solution, and it is followed by one bit per
+ *          cell, in the same order, telling if the cell was given in the puzzle. The last
+ *          byte is padded with zeros.
+ * 8 bytes: the time spent solving in milliseconds, only if FLAG_METADATA is set
+ *
+ * The encoder and decoder work on ByteBuffers so that records can be streamed to and from
+ * a channel. Neither of them will ever consume part of a record: if the buffer doesn't have
+ * enough room (or doesn't contain a whole record yet), they leave it untouched so the caller
+ * can flush (or fill) the buffer and try again.
+ */
+class SudokuCodec
+{
+    // Set when the record is followed by solver metadata
+    static final int FLAG_METADATA = 1;
+    // Set when the grid is a solution, followed by the bitmap of the cells given in the puzzle
+    static final int FLAG_SOLUTION = 2;
+
+    static final int HEADER_LENGTH = 2;
+    static final int METADATA_LENGTH = 8;
+
+    /* Record
+     * A decoded puzzle, with its solution and the solver metadata if the record had them.
+     */
+    static class Record {
+        final Sudoku puzzle;
+        // null if the record only holds a puzzle
+        final Sudoku solution;
+        final boolean hasMetadata;
+        final long solveTime;
+
+        Record(Sudoku puzzle, Sudoku solution, boolean hasMetadata, long solveTime) {
+            this.puzzle = puzzle;
+            this.solution = solution;
+            this.hasMetadata = hasMetadata;
+            this.solveTime = solveTime;
+        }
+    }
+
+    // The number of bits needed to store a value from 0 to N, which is ceil(log2(N+1))
+    static int bitsPerCell(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+
+    static void checkSize(int size) {
+        if (size < 1 || size > 100) {
+            throw new IllegalArgumentException("Invalid sudoku size " + size + ", it must be between 1 and 100");
+        }
+    }
+
+    // The number of bytes taken by a record of this size. Even for SIZE 100 this fits in an int.
+    static int recordLength(int size, boolean withSolution, boolean withMetadata) {
+        checkSize(size);
+        long cells = (long) size*size*size*size;
+        long length = HEADER_LENGTH + (cells*bitsPerCell(size*size) + 7) / 8;
+        if (withSolution) {
+            length += (cells + 7) / 8;
+        }
+        if (withMetadata) {
+            length += METADATA_LENGTH;
+        }
+        return (int) length;
+    }
+
+
+    /* BitWriter
+     * Shifts values into an accumulator and writes it out to the buffer a byte at a time.
+     */
+    static class BitWriter {
+        final ByteBuffer out;
+        long pending = 0;
+        int pendingBits = 0;
+
+        BitWriter(ByteBuffer out) {
+            this.out = out;
+        }
+
+        void put(int value, int bits) {
+            pending = (pending << bits) | value;
+            pendingBits += bits;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                out.put((byte) (pending >>> pendingBits));
+            }
+        }
+
+        // Pads the last byte with zeros
+        void flush() {
+            if (pendingBits > 0) {
+                out.put((byte) (pending << (8 - pendingBits)));
+            }
+            pending = 0;
+            pendingBits = 0;
+        }
+    }
+
+    /* BitReader
+     * The reverse of BitWriter.
+     */
+    static class BitReader {
+        final ByteBuffer in;
+        long pending = 0;
+        int pendingBits = 0;
+
+        BitReader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        int get(int bits) {
+            while (pendingBits < bits) {
+                pending = (pending << 8) | (in.get() & 0xff);
+                pendingBits += 8;
+            }
+            pendingBits -= bits;
+            return (int) (pending >>> pendingBits) & ((1 << bits) - 1);
+        }
+
+        // Skips the padding of the last byte
+        void skipPadding() {
+            pending = 0;
+            pendingBits = 0;
+        }
+    }
+
+
+    /* Writes the puzzle as one record at the position of out.
+     * Returns false, without writing anything, if out doesn't have enough room left. */
+    static boolean encode(Sudoku puzzle, ByteBuffer out) {
+        return encode(puzzle, null, false, 0, out);
+    }
+
+    /* Same as above, but also writes the solution (unless it is null) and the solve time (if
+     * withMetadata is set). The solution must be solved (see Sudoku.isSolved) and contain all
+     * the values given in the puzzle. */
+    static boolean encode(Sudoku puzzle, Sudoku solution, boolean withMetadata, long solveTime, ByteBuffer out) {
+        int size = puzzle.SIZE;
+        if (solution != null && solution.SIZE != size) {
+            throw new IllegalArgumentException("The solution has size " + solution.SIZE + " but the puzzle has size " + size);
+        }
+        if (solution != null && !solution.isSolved()) {
+            throw new IllegalArgumentException("The solution is incomplete or has the same value twice in a zone");
+        }
+        if (out.remaining() < recordLength(size, solution != null, withMetadata)) {
+            return false;
+        }
+
+        int n = puzzle.N;
+        int bits = bitsPerCell(n);
+
+        // Everything is checked before anything is written, so that a bad grid doesn't leave half a record
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int value = puzzle.Grid[i][j];
+                if (value < 0 || value > n) {
+                    throw new IllegalArgumentException("Value " + value + " doesn't fit in a sudoku of size " + size);
+                }
+                if (solution != null) {
+                    int solved = solution.Grid[i][j];
+                    if (solved < 0 || solved > n) {
+                        throw new IllegalArgumentException("Value " + solved + " doesn't fit in a sudoku of size " + size);
+                    }
+                    if (value != 0 && value != solved) {
+                        throw new IllegalArgumentException("The solution doesn't match the puzzle at row " + i + ", column " + j);
+                    }
+                }
+            }
+        }
+
+        int flags = (withMetadata ? FLAG_METADATA : 0) | (solution != null ? FLAG_SOLUTION : 0);
+        out.put((byte) size);
+        out.put((byte) flags);
+
+        BitWriter writer = new BitWriter(out);
+        int[][] grid = solution != null ? solution.Grid : puzzle.Grid;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                writer.put(grid[i][j], bits);
+            }
+        }
+        writer.flush();
+
+        if (solution != null) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    writer.put(puzzle.Grid[i][j] != 0 ? 1 : 0, 1);
+                }
+            }
+            writer.flush();
+        }
+
+        if (withMetadata) {
+            out.putLong(solveTime);
+        }
+        return true;
+    }
+
+
+    /* Reads one record at the position of in.
+     * Returns null, without consuming anything, if in doesn't contain a whole record yet. */
+    static Record decode(ByteBuffer in) {
+        if (in.remaining() < HEADER_LENGTH) {
+            return null;
+        }
+
+        int start = in.position();
+        int size = in.get(start) & 0xff;
+        int flags = in.get(start + 1) & 0xff;
+
+        if (size < 1 || size > 100) {
+            throw new IllegalArgumentException("Invalid sudoku size " + size + " in record at position " + start);
+        }
+        if ((flags & ~(FLAG_METADATA | FLAG_SOLUTION)) != 0) {
+            throw new IllegalArgumentException("Unknown flags " + flags + " in record at position " + start);
+        }
+
+        boolean withMetadata = (flags & FLAG_METADATA) != 0;
+        boolean withSolution = (flags & FLAG_SOLUTION) != 0;
+        if (in.remaining() < recordLength(size, withSolution, withMetadata)) {
+            return null;
+        }
+
+        // The record is read through a copy of the buffer, and in only moves once the whole record
+        // was read, so a record with a bad value doesn't get partly consumed either.
+        ByteBuffer record = in.duplicate().order(in.order());
+        record.position(start + HEADER_LENGTH);
+
+        Sudoku grid = new Sudoku(size);
+        int n = grid.N;
+        int bits = bitsPerCell(n);
+
+        BitReader reader = new BitReader(record);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int value = reader.get(bits);
+                if (value > n) {
+                    throw new IllegalArgumentException("Value " + value + " doesn't fit in a sudoku of size " + size);
+                }
+                grid.Grid[i][j] = value;
+            }
+        }
+        reader.skipPadding();
+
+        // For a solution, the puzzle is made of the cells of the solution that were given
+        Sudoku puzzle = grid;
+        Sudoku solution = null;
+        if (withSolution) {
+            solution = grid;
+            puzzle = new Sudoku(size);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (reader.get(1) == 1) {
+                        puzzle.Grid[i][j] = solution.Grid[i][j];
+                    }
+                }
+            }
+            reader.skipPadding();
+        }
+
+        long solveTime = withMetadata ? record.getLong() : 0;
+        in.position(record.position());
+        return new Record(puzzle, solution, withMetadata, solveTime);
+    }
+
+
+    /* The main function converts between the text format and the binary format.
+     *
+     * java SudokuCodec encode out.bin puzzle1.txt puzzle2.txt ...
+     *      Appends one record per text file to out.bin.
+     * java SudokuCodec solve out.bin puzzle1.txt puzzle2.txt ...
+     *      Same, but solves each puzzle first and also stores the solution with the time spent solving.
+     * java SudokuCodec decode in.bin
+     *      Prints every record of in.bin in the text format, so that the output of a single
+     *      record can be given back to Sudoku. For solutions, the solution is printed after the
+     *      puzzle, so it is ignored when reading the output back.
+     */
+    public static void main( String args[] ) throws Exception
+    {
+        if( args.length >= 2 && args[0].equals("encode") ) {
+            encodeFiles( args, false );
+        }
+        else if( args.length >= 2 && args[0].equals("solve") ) {
+            encodeFiles( args, true );
+        }
+        else if( args.length == 2 && args[0].equals("decode") ) {
+            decodeFile( args[1] );
+        }
+        else {
+            System.out.println("Usage: java SudokuCodec encode out.bin puzzle.txt...");
+            System.out.println("       java SudokuCodec solve out.bin puzzle.txt...");
+            System.out.println("       java SudokuCodec decode in.bin");
+            System.exit(-1);
+        }
+    }
+
+    static void encodeFiles( String args[], boolean solve ) throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+
+        try( FileChannel out = new FileOutputStream( args[1], true ).getChannel() ) {
+            for( int k = 2; k < args.length; k++ ) {
+                Sudoku puzzle;
+                try( InputStream in = new FileInputStream( args[k] ) ) {
+                    puzzle = new Sudoku( Sudoku.readInteger( in ) );
+                    puzzle.read( in );
+                }
+
+                // The solver works in place, so it gets a copy and the puzzle keeps its givens
+                Sudoku solution = null;
+                long solveTime = 0;
+                if( solve ) {
+                    solution = new Sudoku( puzzle.SIZE );
+                    for( int i = 0; i < puzzle.N; i++ ) {
+                        solution.Grid[i] = puzzle.Grid[i].clone();
+                    }
+                    long oldTime = System.currentTimeMillis();
+                    solution.solve();
+                    solveTime = System.currentTimeMillis()-oldTime;
+
+                    // Keep the records of the puzzles before this one, but don't store a bad solution
+                    if( !solution.isSolved() ) {
+                        flush( buffer, out );
+                        throw new IllegalArgumentException("No solution was found for " + args[k]);
+                    }
+                }
+
+                if( !encode( puzzle, solution, solve, solveTime, buffer ) ) {
+                    flush( buffer, out );
+                    // A record bigger than the buffer gets a buffer of its own
+                    if( !encode( puzzle, solution, solve, solveTime, buffer ) ) {
+                        ByteBuffer big = ByteBuffer.allocate( recordLength( puzzle.SIZE, solve, solve ) );
+                        encode( puzzle, solution, solve, solveTime, big );
+                        flush( big, out );
+                    }
+                }
+            }
+            flush( buffer, out );
+        }
+    }
+
+    static void decodeFile( String name ) throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+
+        try( FileChannel in = new FileInputStream( name ).getChannel() ) {
+            while( true ) {
+                boolean endOfFile = in.read( buffer ) == -1;
+
+                buffer.flip();
+                Record record;
+                while( (record = decode( buffer )) != null ) {
+                    printRecord( record );
+                }
+                buffer.compact();
+
+                if( endOfFile ) {
+                    break;
+                }
+
+                // The next record doesn't fit in the buffer, make it bigger
+                if( !buffer.hasRemaining() ) {
+                    ByteBuffer bigger = ByteBuffer.allocate( buffer.capacity()*2 );
+                    buffer.flip();
+                    bigger.put( buffer );
+                    buffer = bigger;
+                }
+            }
+
+            if( buffer.position() > 0 ) {
+                throw new EOFException("Truncated record at the end of " + name);
+            }
+        }
+    }
+
+    static void flush( ByteBuffer buffer, WritableByteChannel out ) throws IOException
+    {
+        buffer.flip();
+        while( buffer.hasRemaining() ) {
+            out.write( buffer );
+        }
+        buffer.clear();
+    }
+
+    static void printRecord( Record record )
+    {
+        System.out.println( record.puzzle.SIZE );
+        System.out.println();
+        record.puzzle.print();
+        if( record.solution != null ) {
+            System.out.println();
+            System.out.println("Solution:");
+            record.solution.print();
+        }
+        if( record.hasMetadata ) {
+            System.out.println("Time spent solving: "+record.solveTime+" milliseconds.");
+        }
+        System.out.println();
+    }
+}